@@ -0,0 +1,98 @@
+package com.atomist.rug.compiler.typescript;
+
+import static scala.collection.JavaConversions.asJavaCollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atomist.rug.compiler.typescript.compilation.CacheFiles;
+import com.atomist.rug.compiler.typescript.compilation.CompilationBundles;
+import com.atomist.source.ArtifactSource;
+import com.atomist.source.ByteArrayFileArtifact;
+import com.atomist.source.FileArtifact;
+
+import scala.Option;
+
+/**
+ * Caches the outputs of compiling a whole archive, keyed by a hash over a content manifest of its
+ * <code>.atomist</code> tree. A hit returns the stored outputs without touching a JavaScript
+ * engine or the per file cache.
+ */
+class ArchiveCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveCache.class);
+
+    private static final String ARCHIVES_DIR = "archives";
+    private static final String EXTENSION = ".zip";
+
+    private final File cacheDir;
+
+    public ArchiveCache(File cacheDir) {
+        this.cacheDir = new File(cacheDir, ARCHIVES_DIR);
+    }
+
+    /**
+     * Hashes the manifest of all <code>path md5(content)</code> lines of the archive's
+     * <code>.atomist</code> files, including <code>node_modules</code> as they take part in
+     * type checking, and the compiler version, so that outputs of another compiler aren't served.
+     */
+    public String hash(ArtifactSource source) {
+        List<FileArtifact> files = asJavaCollection(source.allFiles()).stream()
+                .filter(f -> f.path().startsWith(".atomist/"))
+                .sorted(Comparator.comparing(FileArtifact::path)).collect(Collectors.toList());
+        StringBuilder manifest = new StringBuilder(CompilationBundles.compilerVersion())
+                .append('\n');
+        files.forEach(f -> manifest.append(f.path()).append('\t')
+                .append(DigestUtils.md5Hex(f.content())).append('\n'));
+        return DigestUtils.md5Hex(manifest.toString());
+    }
+
+    public Option<ArtifactSource> lookup(String hash, ArtifactSource source) {
+        File archive = new File(cacheDir, hash + EXTENSION);
+        if (!archive.exists()) {
+            return Option.empty();
+        }
+        ArtifactSource result = source;
+        try {
+            for (Map.Entry<String, byte[]> entry : CacheFiles.readZip(archive).entrySet()) {
+                result = result.plus(ByteArrayFileArtifact.apply(entry.getKey(), entry.getValue()));
+            }
+        }
+        catch (IOException e) {
+            // A broken entry is just a miss; it gets overwritten after compiling
+            return Option.empty();
+        }
+        return Option.apply(result);
+    }
+
+    public void store(String hash, ArtifactSource source, ArtifactSource result) {
+        try {
+            Map<String, byte[]> outputs = new LinkedHashMap<>();
+            for (String path : asJavaCollection(result.deltaFrom(source).deltas()).stream()
+                    .map(d -> d.path()).distinct().collect(Collectors.toList())) {
+                Option<FileArtifact> file = result.findFile(path);
+                if (file.isDefined()) {
+                    try (InputStream is = file.get().inputStream()) {
+                        outputs.put(path, IOUtils.toByteArray(is));
+                    }
+                }
+            }
+            CacheFiles.writeZip(new File(cacheDir, hash + EXTENSION), outputs);
+        }
+        catch (IOException e) {
+            // Failing to cache doesn't fail the compile
+            LOGGER.warn("Error writing archive cache entry {}", hash, e);
+        }
+    }
+}
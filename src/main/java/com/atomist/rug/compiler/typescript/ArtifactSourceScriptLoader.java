@@ -3,6 +3,8 @@ package com.atomist.rug.compiler.typescript;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.IOUtils;
 
@@ -14,6 +16,11 @@ import scala.Option;
 
 class ArtifactSourceScriptLoader implements ScriptLoader {
 
+    private static final String LIB_ES5 = "typescript/lib/lib.es5.d.ts";
+
+    // Library sources never change at runtime; keep one copy per process
+    private static final Map<String, String> LIBRARY_SOURCES = new ConcurrentHashMap<>();
+
     private ArtifactSource source;
 
     public ArtifactSourceScriptLoader(ArtifactSource source) {
@@ -26,18 +33,9 @@ class ArtifactSourceScriptLoader implements ScriptLoader {
         if (file.isDefined()) {
             return file.get().content();
         }
-        else if (filename.equals("typescript/lib/lib.es5.d.ts")) {
-            // Delegate to resolution from outside the artifact
-            try (InputStream is = Thread.currentThread().getContextClassLoader()
-                    .getResourceAsStream(filename)) {
-                if (is != null) {
-                    return IOUtils.toString(is, Charset.defaultCharset());
-                }
-            }
-            catch (IOException e) {
-                throw new TypeScriptCompilationException(
-                        String.format("Error occured loading source for %s ", filename), e);
-            }
+        else if (filename.equals(LIB_ES5)) {
+            return LIBRARY_SOURCES.computeIfAbsent(filename,
+                    ArtifactSourceScriptLoader::loadLibrarySource);
         }
         throw new TypeScriptCompilationException(
                 String.format("Source for %s couldn't be found", filename));
@@ -65,4 +63,20 @@ class ArtifactSourceScriptLoader implements ScriptLoader {
     public ArtifactSource result() {
         return this.source;
     }
-}
\ No newline at end of file
+
+    private static String loadLibrarySource(String filename) {
+        // Delegate to resolution from outside the artifact
+        try (InputStream is = Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream(filename)) {
+            if (is == null) {
+                throw new TypeScriptCompilationException(
+                        String.format("Source for %s couldn't be found", filename));
+            }
+            return IOUtils.toString(is, Charset.defaultCharset());
+        }
+        catch (IOException e) {
+            throw new TypeScriptCompilationException(
+                    String.format("Error occured loading source for %s ", filename), e);
+        }
+    }
+}
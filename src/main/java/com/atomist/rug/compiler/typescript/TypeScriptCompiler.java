@@ -8,7 +8,9 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,6 +23,8 @@ import org.slf4j.LoggerFactory;
 import com.atomist.rug.compiler.Compiler;
 import com.atomist.rug.compiler.CompilerListener;
 import com.atomist.rug.compiler.CompilerListenerEnabled;
+import com.atomist.rug.compiler.typescript.compilation.CachingCompiler;
+import com.atomist.rug.compiler.typescript.compilation.CompilationBundles;
 import com.atomist.rug.compiler.typescript.compilation.CompilerFactory;
 import com.atomist.source.ArtifactSource;
 import com.atomist.source.Deltas;
@@ -59,6 +63,18 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
             List<FileArtifact> files = filterSourceFiles(source);
 
             if (files.size() > 0) {
+                // An unchanged archive is served from the archive cache without starting an engine
+                ArchiveCache archiveCache = archiveCache();
+                String archiveHash = null;
+                if (archiveCache != null) {
+                    archiveHash = archiveCache.hash(source);
+                    Option<ArtifactSource> cached = archiveCache.lookup(archiveHash, source);
+                    if (cached.isDefined()) {
+                        notifyFromCache(files, cached.get());
+                        return cached.get();
+                    }
+                }
+
                 // Init the compiler
                 initCompiler();
 
@@ -66,6 +82,9 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
                 compileFiles(source, scriptLoader, files);
 
                 ArtifactSource result = scriptLoader.result();
+                if (archiveCache != null) {
+                    archiveCache.store(archiveHash, source, result);
+                }
                 Deltas deltas = result.deltaFrom(source);
                 if (LOGGER.isDebugEnabled()) {
 
@@ -87,6 +106,33 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
         }
     }
 
+    /**
+     * Compiles the given archive and writes its outputs, keyed by the caching compiler's cache keys,
+     * into a bundle that can be imported into the cache elsewhere.
+     */
+    public ArtifactSource exportBundle(ArtifactSource source, File bundle) {
+        if (filterSourceFiles(source).isEmpty()) {
+            // E.g. the .atomist directory itself was given as the input path
+            throw new TypeScriptCompilationException(
+                    "No TypeScript sources found below .atomist/ to export to " + bundle);
+        }
+        ArtifactSource result = compile(source);
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        filterSourceFiles(source).forEach(f -> {
+            String key = CompilationBundles.cacheKey(f.content());
+            String jsFileName = f.path().replaceAll("\\.ts$", ".js");
+            Option<FileArtifact> js = result.findFile(jsFileName);
+            Option<FileArtifact> map = result.findFile(jsFileName + ".map");
+            if (js.isDefined() && map.isDefined()) {
+                entries.put(key + ".js", js.get().content());
+                entries.put(key + ".js.map", map.get().content());
+            }
+        });
+        CompilationBundles.write(entries, bundle);
+        return result;
+    }
+
     @Override
     public Set<String> extensions() {
         return Collections.singleton("ts");
@@ -140,6 +186,22 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
         }
     }
 
+    private void notifyFromCache(List<FileArtifact> files, ArtifactSource result) {
+        files.forEach(f -> {
+            listeners.forEach(l -> l.compileStarted(f.path()));
+            Option<FileArtifact> file = result.findFile(f.path().replaceAll("\\.ts$", ".js"));
+            listeners.forEach(l -> l.compileSucceeded(f.path(),
+                    file.isDefined() ? file.get().content() : null));
+        });
+    }
+
+    private ArchiveCache archiveCache() {
+        if (compiler instanceof CachingCompiler) {
+            return new ArchiveCache(((CachingCompiler) compiler).cacheDir());
+        }
+        return null;
+    }
+
     private String handleException(Exception e, ArtifactSource source) {
         String msg = e.getMessage();
         if (msg != null && msg.contains("<#>")) {
@@ -200,8 +262,20 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
     }
 
     public static void main(String[] args) throws Exception {
+        if (args != null && args.length == 1 && "--daemon".equals(args[0])) {
+            new TypeScriptCompilerDaemon().start();
+            return;
+        }
+        if (args != null && args.length == 3 && "--export-bundle".equals(args[0])) {
+            FileSystemArtifactSource input = new FileSystemArtifactSource(
+                    FileSystemArtifactSourceIdentifier$.MODULE$.apply(new File(args[1])));
+            new TypeScriptCompiler().exportBundle(input, new File(args[2]));
+            return;
+        }
         if (args == null || args.length != 2) {
             System.out.println("Usage: TypeScriptCompiler <input-path> <output-path>");
+            System.out.println("       TypeScriptCompiler --daemon");
+            System.out.println("       TypeScriptCompiler --export-bundle <input-path> <bundle-file>");
             System.exit(1);
         }
         File inputFile = new File(args[0]);
@@ -210,12 +284,20 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
         }
 
         File outputFile = new File(args[1]);
+
+        // Hand over to a running daemon if there is one; otherwise compile in-process
+        if (!TypeScriptCompilerDaemon.forward(inputFile, outputFile)) {
+            compile(new TypeScriptCompiler(), inputFile, outputFile);
+        }
+    }
+
+    static void compile(TypeScriptCompiler compiler, File inputFile, File outputFile) {
         outputFile.mkdirs();
 
         FileSystemArtifactSource input = new FileSystemArtifactSource(
                 FileSystemArtifactSourceIdentifier$.MODULE$.apply(inputFile));
 
-        ArtifactSource outputMem = new TypeScriptCompiler().compile(input);
+        ArtifactSource outputMem = compiler.compile(input);
 
         asJavaCollection(outputMem.allFiles()).forEach(f -> {
             PrintWriter pw = null;
@@ -232,7 +314,6 @@ public class TypeScriptCompiler implements Compiler, CompilerListenerEnabled {
                 IOUtils.closeQuietly(pw);
             }
         });
-
     }
 
 }
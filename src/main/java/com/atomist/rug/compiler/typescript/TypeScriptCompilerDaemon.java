@@ -0,0 +1,374 @@
+package com.atomist.rug.compiler.typescript;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atomist.rug.compiler.typescript.compilation.Compiler;
+import com.atomist.rug.compiler.typescript.compilation.CompilerFactory;
+
+/**
+ * Keeps warm compilers resident and serves compile requests on a loopback socket so that callers
+ * of {@link TypeScriptCompiler#main(String[])} don't pay for JVM startup and engine creation.
+ * <p>
+ * The protocol is line based: a client sends <code>compile</code>, the daemon's token, the input
+ * path and the output path on one line separated by tabs and receives <code>OK</code>,
+ * <code>DENIED</code> or <code>ERROR</code> followed by the error message.
+ * <p>
+ * The daemon reads and writes files with its owner's permissions, and any local user can connect
+ * to a loopback port. Requests are therefore only served with the random token that the daemon
+ * writes, readable by its owner only, to <code>ts-compiler-daemon-&lt;port&gt;.token</code> in
+ * <code>ts.daemonTokenDir</code> (<code>~/.atomist</code> by default).
+ */
+public class TypeScriptCompilerDaemon {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeScriptCompilerDaemon.class);
+
+    public static final int DEFAULT_PORT = Integer.getInteger("ts.daemonPort", 7391);
+
+    private static final int DEFAULT_WORKERS = Integer.getInteger("ts.daemonWorkers",
+            Runtime.getRuntime().availableProcessors());
+    private static final long DEFAULT_IDLE_TIMEOUT = Long.getLong("ts.daemonIdleTimeout",
+            30 * 60 * 1000L);
+    private static final int CONNECT_TIMEOUT = 200;
+    // How long the daemon waits for a request line and a client waits for the compile result
+    private static final int READ_TIMEOUT = Integer.getInteger("ts.daemonReadTimeout", 10 * 1000);
+    private static final int RESPONSE_TIMEOUT = Integer.getInteger("ts.daemonResponseTimeout",
+            5 * 60 * 1000);
+
+    private static final File TOKEN_DIR = new File(System.getProperty("ts.daemonTokenDir",
+            System.getProperty("user.home") + File.separator + ".atomist"));
+
+    private static final String COMPILE = "compile";
+    private static final String OK = "OK";
+    private static final String ERROR = "ERROR";
+    private static final String DENIED = "DENIED";
+    private static final String SEPARATOR = "\t";
+
+    private final int port;
+    private final int workers;
+    private final long idleTimeout;
+    private final Supplier<Compiler> compilers;
+
+    private final BlockingQueue<Socket> requests = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
+
+    private ServerSocket serverSocket;
+    private String token;
+    private volatile boolean running;
+
+    public TypeScriptCompilerDaemon() {
+        this(DEFAULT_PORT, DEFAULT_WORKERS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public TypeScriptCompilerDaemon(int port, int workers, long idleTimeout) {
+        this(port, workers, idleTimeout, () -> CompilerFactory.create(true));
+    }
+
+    TypeScriptCompilerDaemon(int port, int workers, long idleTimeout,
+            Supplier<Compiler> compilers) {
+        this.port = port;
+        this.workers = workers;
+        this.idleTimeout = idleTimeout;
+        this.compilers = compilers;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            token = writeToken(tokenFile(getPort()));
+        }
+        catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        running = true;
+
+        for (int i = 0; i < workers; i++) {
+            threads.add(startThread("ts-compiler-worker-" + i, this::work));
+        }
+        threads.add(startThread("ts-compiler-acceptor", this::accept));
+        threads.add(startThread("ts-compiler-idle-monitor", this::monitor));
+        LOGGER.info("TypeScript compiler daemon listening on port {} with {} workers", port,
+                workers);
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        tokenFile(getPort()).delete();
+        try {
+            serverSocket.close();
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+        threads.forEach(Thread::interrupt);
+        requests.forEach(r -> {
+            try {
+                r.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+        });
+        LOGGER.info("TypeScript compiler daemon stopped");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sends a compile request to a daemon listening on {@link #DEFAULT_PORT}.
+     * @return <code>false</code> if no daemon is reachable and the caller should compile in-process
+     */
+    public static boolean forward(File inputFile, File outputFile) {
+        return forward(DEFAULT_PORT, inputFile, outputFile);
+    }
+
+    public static boolean forward(int port, File inputFile, File outputFile) {
+        File tokenFile = tokenFile(port);
+        if (!tokenFile.canRead()) {
+            return false;
+        }
+        try (Socket socket = new Socket()) {
+            String token = new String(Files.readAllBytes(tokenFile.toPath()),
+                    StandardCharsets.UTF_8);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    CONNECT_TIMEOUT);
+            // A hung daemon makes the caller fall back to compiling in-process
+            socket.setSoTimeout(RESPONSE_TIMEOUT);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8);
+            writer.write(COMPILE + SEPARATOR + token + SEPARATOR + inputFile.getAbsolutePath()
+                    + SEPARATOR + outputFile.getAbsolutePath() + "\n");
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String status = reader.readLine();
+            if (OK.equals(status)) {
+                return true;
+            }
+            else if (ERROR.equals(status)) {
+                throw new TypeScriptCompilationException(
+                        reader.lines().collect(Collectors.joining(System.lineSeparator())));
+            }
+            return false;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    static File tokenFile(int port) {
+        return new File(TOKEN_DIR, "ts-compiler-daemon-" + port + ".token");
+    }
+
+    private static String writeToken(File tokenFile) throws IOException {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        String token = Hex.encodeHexString(bytes);
+
+        TOKEN_DIR.mkdirs();
+        // Files.createTempFile creates owner-only files on POSIX file systems; moving it in place
+        // means the token is never readable by anyone else, not even briefly
+        Path tempFile = Files.createTempFile(TOKEN_DIR.toPath(), "ts-compiler-daemon", ".tmp");
+        try {
+            Files.write(tempFile, token.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, tokenFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return token;
+    }
+
+    private Thread startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.start();
+        return thread;
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                // A client that connects and never sends a request must not hold a worker forever
+                socket.setSoTimeout(READ_TIMEOUT);
+                requests.put(socket);
+            }
+            catch (SocketException e) {
+                // Server socket closed by stop()
+                return;
+            }
+            catch (IOException e) {
+                LOGGER.warn("Error accepting compile request", e);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void work() {
+        // Engines are bound to the thread that created them, so each worker owns its compiler
+        TypeScriptCompiler compiler = null;
+        Compiler engine = null;
+        try {
+            while (running) {
+                Socket socket = requests.take();
+                active.incrementAndGet();
+                try {
+                    if (compiler == null) {
+                        engine = compilers.get();
+                        compiler = new TypeScriptCompiler(engine);
+                    }
+                    handle(compiler, socket);
+                }
+                catch (IOException e) {
+                    LOGGER.warn("Error handling compile request", e);
+                }
+                catch (Throwable e) {
+                    // E.g. a StackOverflowError or OutOfMemoryError thrown inside the engine; the
+                    // engine can't be trusted afterwards, so the next request gets a new one
+                    LOGGER.error("Error compiling, discarding compiler", e);
+                    respond(socket, ERROR + "\n" + e.getMessage());
+                    shutdownQuietly(engine);
+                    engine = null;
+                    compiler = null;
+                }
+                finally {
+                    closeQuietly(socket);
+                    lastActivity.set(System.currentTimeMillis());
+                    active.decrementAndGet();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // Daemon is stopping
+        }
+        finally {
+            shutdownQuietly(engine);
+        }
+    }
+
+    /**
+     * Answers a single request. Exceptions are reported to the client; {@link Error}s are left to
+     * the caller, which discards the compiler.
+     */
+    private void handle(TypeScriptCompiler compiler, Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String[] request = String.valueOf(reader.readLine()).split(SEPARATOR);
+        String response;
+        try {
+            if (request.length != 4 || !COMPILE.equals(request[0])) {
+                throw new IllegalArgumentException("Invalid request: " + request[0]);
+            }
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    request[1].getBytes(StandardCharsets.UTF_8))) {
+                LOGGER.warn("Rejected compile request with invalid token");
+                response = DENIED + "\n";
+            }
+            else {
+                TypeScriptCompiler.compile(compiler, new File(request[2]), new File(request[3]));
+                response = OK + "\n";
+            }
+        }
+        catch (Exception e) {
+            response = ERROR + "\n" + e.getMessage();
+        }
+        respond(socket, response);
+    }
+
+    private void respond(Socket socket, String response) {
+        try {
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8);
+            writer.write(response);
+            writer.flush();
+        }
+        catch (IOException e) {
+            LOGGER.warn("Error responding to compile request", e);
+        }
+    }
+
+    private void shutdownQuietly(Compiler engine) {
+        if (engine == null) {
+            return;
+        }
+        try {
+            engine.shutdown();
+        }
+        catch (Throwable e) {
+            LOGGER.warn("Error shutting down compiler", e);
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private void monitor() {
+        try {
+            while (running) {
+                Thread.sleep(Math.max(1000, idleTimeout / 4));
+                if (active.get() == 0 && requests.isEmpty()
+                        && System.currentTimeMillis() - lastActivity.get() > idleTimeout) {
+                    LOGGER.info("TypeScript compiler daemon idle for {} ms, shutting down",
+                            idleTimeout);
+                    stop();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // Daemon is stopping
+        }
+    }
+}
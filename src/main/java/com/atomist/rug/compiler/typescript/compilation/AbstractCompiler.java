@@ -11,8 +11,8 @@ import com.atomist.rug.compiler.typescript.TypeScriptException;
 
 public abstract class AbstractCompiler<T> implements Compiler {
 
-    private static final String TYPESCRIPT_JS = "typescript/lib/typescriptServices.js";
-    private static final String COMPILE_JS = "utils/compile.js";
+    static final String TYPESCRIPT_JS = "typescript/lib/typescriptServices.js";
+    static final String COMPILE_JS = "utils/compile.js";
 
     private T engine;
 
@@ -22,7 +22,7 @@ public abstract class AbstractCompiler<T> implements Compiler {
             throw new TypeScriptException(String.format("Error loading %s from classpath", name));
         }
         try {
-            evalScript(engine, IOUtils.toString(url, Charset.defaultCharset()));
+            evalScript(engine, name, IOUtils.toString(url, Charset.defaultCharset()));
         }
         catch (IOException e) {
             throw new TypeScriptException(String.format("Error loading %s from classpath", name));
@@ -30,7 +30,7 @@ public abstract class AbstractCompiler<T> implements Compiler {
     }
 
     @Override
-    public final void init() {
+    public final synchronized void init() {
         if (engine == null) {
             engine = createEngine();
             loadScript(TYPESCRIPT_JS);
@@ -45,8 +45,15 @@ public abstract class AbstractCompiler<T> implements Compiler {
     }
 
     @Override
-    public final void shutdown() {
-        doShutdown(engine);
+    public final synchronized void shutdown() {
+        if (engine != null) {
+            doShutdown(engine);
+            engine = null;
+        }
+    }
+
+    protected final T getEngine() {
+        return engine;
     }
 
     protected abstract T createEngine();
@@ -56,6 +63,10 @@ public abstract class AbstractCompiler<T> implements Compiler {
 
     protected abstract void evalScript(T engine, String src);
 
+    protected void evalScript(T engine, String name, String src) {
+        evalScript(engine, src);
+    }
+
     protected abstract void doCompile(T engine, String file, ScriptLoader scriptLoader);
 
     protected void doShutdown(T engine) {
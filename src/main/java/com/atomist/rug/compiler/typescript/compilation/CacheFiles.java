@@ -0,0 +1,78 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads and writes the files of the compiler caches, which may be shared by several compilers and
+ * processes.
+ */
+public abstract class CacheFiles {
+
+    @FunctionalInterface
+    public interface Content {
+
+        void writeTo(OutputStream os) throws IOException;
+    }
+
+    /**
+     * Writes to a temporary file next to the given one and moves it in place, so that readers
+     * never see a partially written file.
+     */
+    public static void writeAtomically(File file, Content content) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (OutputStream os = new FileOutputStream(tempFile)) {
+                content.writeTo(os);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            tempFile.delete();
+        }
+    }
+
+    public static void writeZip(File file, Map<String, byte[]> entries) throws IOException {
+        writeAtomically(file, os -> {
+            ZipOutputStream zip = new ZipOutputStream(os);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+            zip.finish();
+        });
+    }
+
+    public static Map<String, byte[]> readZip(File file) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (!entry.isDirectory()) {
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        entries.put(entry.getName(), IOUtils.toByteArray(is));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,32 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters of the {@link FileSystemCachingCompiler}.
+ */
+public abstract class CacheStatistics {
+
+    static final AtomicLong HITS = new AtomicLong();
+    static final AtomicLong MISSES = new AtomicLong();
+    static final AtomicLong COALESCED = new AtomicLong();
+
+    public static long hits() {
+        return HITS.get();
+    }
+
+    /**
+     * Number of compiles that actually went to the JavaScript engine.
+     */
+    public static long misses() {
+        return MISSES.get();
+    }
+
+    /**
+     * Number of compiles that waited for an identical in-flight compile instead of running their
+     * own.
+     */
+    public static long coalesced() {
+        return COALESCED.get();
+    }
+}
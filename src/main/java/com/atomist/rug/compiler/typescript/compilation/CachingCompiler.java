@@ -0,0 +1,9 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.io.File;
+
+public interface CachingCompiler extends Compiler {
+
+    File cacheDir();
+
+}
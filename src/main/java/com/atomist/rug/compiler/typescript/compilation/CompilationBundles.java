@@ -0,0 +1,152 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atomist.rug.compiler.typescript.TypeScriptCompilationException;
+import com.atomist.rug.compiler.typescript.TypeScriptException;
+
+/**
+ * Portable bundles of compiled outputs keyed the same way as the {@link FileSystemCachingCompiler}
+ * cache, so that published archives can seed a cache without going through a JavaScript engine.
+ * <p>
+ * A bundle is a zip file whose entries are named and encoded exactly like the cache files, plus a
+ * manifest recording the version of the TypeScript compiler that produced them. Bundles of other
+ * versions are rejected on import.
+ */
+public abstract class CompilationBundles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompilationBundles.class);
+
+    public static final String BUNDLE_EXTENSION = ".zip";
+
+    static final String MANIFEST = "bundle.properties";
+    private static final String COMPILER_VERSION = "compiler.version";
+
+    public static String cacheKey(String contents) {
+        return DigestUtils.md5Hex(contents);
+    }
+
+    /**
+     * Hash of the TypeScript services and <code>compile.js</code> scripts, which together decide
+     * what a source compiles to.
+     */
+    public static String compilerVersion() {
+        return VersionHolder.VERSION;
+    }
+
+    public static void write(Map<String, String> entries, File bundle) {
+        Map<String, byte[]> zipEntries = new LinkedHashMap<>();
+        zipEntries.put(MANIFEST, manifest(compilerVersion()));
+        entries.forEach((name, content) -> zipEntries.put(name,
+                content.getBytes(StandardCharsets.ISO_8859_1)));
+        try {
+            CacheFiles.writeZip(bundle, zipEntries);
+        }
+        catch (IOException e) {
+            throw new TypeScriptCompilationException(
+                    String.format("Error writing bundle %s", bundle), e);
+        }
+    }
+
+    /**
+     * Copies the entries of the given bundle, or of all bundles in the given directory, into the
+     * cache directory. Bundles written by another compiler version and bundles that can't be read
+     * are skipped.
+     * @return the number of cache entries imported
+     */
+    public static int extract(File bundle, File cacheDir) {
+        if (bundle.isDirectory()) {
+            int count = 0;
+            File[] bundles = bundle.listFiles((d, n) -> n.endsWith(BUNDLE_EXTENSION));
+            if (bundles != null) {
+                for (File b : bundles) {
+                    count += extract(b, cacheDir);
+                }
+            }
+            return count;
+        }
+
+        int count = 0;
+        try {
+            Map<String, byte[]> entries = CacheFiles.readZip(bundle);
+            String version = version(entries.remove(MANIFEST));
+            if (!compilerVersion().equals(version)) {
+                LOGGER.warn("Skipping bundle {} of compiler version {}; current version is {}",
+                        bundle, version, compilerVersion());
+                return 0;
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                // Cache entries are flat; anything else didn't come from us
+                if (entry.getKey().contains("/") || entry.getKey().contains("\\")) {
+                    continue;
+                }
+                File cachedFile = new File(cacheDir, entry.getKey());
+                if (!cachedFile.exists()) {
+                    CacheFiles.writeAtomically(cachedFile, os -> os.write(entry.getValue()));
+                    count++;
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // A corrupt or truncated bundle only costs the cache hits it would have provided
+            LOGGER.warn("Skipping unreadable bundle {}: {}", bundle, e.getMessage());
+        }
+        return count;
+    }
+
+    static byte[] manifest(String version) {
+        Properties properties = new Properties();
+        properties.setProperty(COMPILER_VERSION, version);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            properties.store(os, null);
+        }
+        catch (IOException e) {
+            // Can't happen writing to memory
+        }
+        return os.toByteArray();
+    }
+
+    private static String version(byte[] manifest) throws IOException {
+        if (manifest == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(manifest));
+        return properties.getProperty(COMPILER_VERSION);
+    }
+
+    private static class VersionHolder {
+
+        private static final String VERSION = DigestUtils
+                .md5Hex(hash(AbstractCompiler.TYPESCRIPT_JS) + hash(AbstractCompiler.COMPILE_JS));
+
+        private static String hash(String name) {
+            try (InputStream is = CompilationBundles.class.getClassLoader()
+                    .getResourceAsStream(name)) {
+                if (is == null) {
+                    throw new TypeScriptException(
+                            String.format("Error loading %s from classpath", name));
+                }
+                return DigestUtils.md5Hex(IOUtils.toByteArray(is));
+            }
+            catch (IOException e) {
+                throw new TypeScriptException(
+                        String.format("Error loading %s from classpath", name));
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.atomist.rug.compiler.typescript.compilation;
 
 import com.atomist.rug.compiler.typescript.TypeScriptCompilationException;
+import com.atomist.rug.compiler.typescript.compilation.GraalCompiler.GraalCompilerHelper;
 import com.atomist.rug.compiler.typescript.compilation.V8Compiler.V8CompilerHelper;
 
 public abstract class CompilerFactory {
     
+    private static final boolean DISABLE_GRAAL = (System.getenv("RUG_DISABLE_GRAAL") != null);
     private static final boolean DISABLE_V8 = (System.getenv("RUG_DISABLE_V8") != null);
     private static final boolean DISABLE_NASHORN = (System.getenv("RUG_DISABLE_NASHORN") != null);
     
@@ -17,19 +19,26 @@ public abstract class CompilerFactory {
         if (V8CompilerHelper.IS_ENABLED && !DISABLE_V8) {
             compiler = new V8Compiler();
         }
+        else if (!DISABLE_GRAAL && GraalCompilerHelper.IS_OPTIMIZING) {
+            // Preferred over Nashorn; not over V8 until CompilerBenchmark shows it's faster
+            compiler = new GraalCompiler();
+        }
         else if (NashornCompiler.IS_ENABLED && !DISABLE_NASHORN) {
             compiler = new NashornCompiler();
         }
+        else if (!DISABLE_GRAAL && GraalCompilerHelper.IS_ENABLED) {
+            // Interpreted GraalJS is slow, but better than no compiler, e.g. on JDKs without Nashorn
+            compiler = new GraalCompiler();
+        }
         else {
             throw new TypeScriptCompilationException("No suitable compiler available");
         }
-        compiler.init();
-        
-        
         if (cache) {
+            // The caching compiler only creates the engine on the first cache miss
             return cachingCompiler(compiler);
         }
         else {
+            compiler.init();
             return compiler;
         }
     }
@@ -3,23 +3,35 @@ package com.atomist.rug.compiler.typescript.compilation;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.atomist.rug.compiler.typescript.ScriptLoader;
 import com.atomist.rug.compiler.typescript.TypeScriptCompilationException;
 
-class FileSystemCachingCompiler implements Compiler {
+class FileSystemCachingCompiler implements CachingCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemCachingCompiler.class);
 
     private static final String CACHE_DIR = System.getProperty("ts.compilerCache",
             System.getProperty("user.dir") + File.separator + ".jscache");
 
+    // Compiles currently running in any caching compiler of this process, keyed by cache file
+    private static final ConcurrentMap<String, CompletableFuture<Void>> IN_FLIGHT =
+            new ConcurrentHashMap<>();
+
     private final File cacheDir;
     private final Compiler delegate;
+    private boolean delegateInitialised = false;
 
     public FileSystemCachingCompiler(Compiler delegate) {
         this.delegate = delegate;
@@ -43,15 +55,49 @@ class FileSystemCachingCompiler implements Compiler {
         File cachedMapFile = new File(cacheDir, hashedMapFile);
         
         if (cachedFile.exists() && cachedMapFile.exists()) {
+            CacheStatistics.HITS.incrementAndGet();
+            writeFromCache(jsFileName, scriptLoader, cachedFile);
+            writeFromCache(jsFileName + ".map", scriptLoader, cachedMapFile);
+            return;
+        }
+
+        String key = cachedFile.getAbsolutePath();
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> running = IN_FLIGHT.putIfAbsent(key, flight);
+        if (running != null) {
+            // Somebody else is compiling the same content; wait for and share their result
+            CacheStatistics.COALESCED.incrementAndGet();
+            await(running);
             writeFromCache(jsFileName, scriptLoader, cachedFile);
             writeFromCache(jsFileName + ".map", scriptLoader, cachedMapFile);
+            return;
         }
-        else {
-            delegate.compile(fileName, scriptLoader);
-            contents = scriptLoader.sourceFor(jsFileName, fileName);
-            writeToCache(contents, hashedFile);
-            contents = scriptLoader.sourceFor(jsFileName + ".map", fileName);
-            writeToCache(contents, hashedMapFile);
+
+        try {
+            // The cache might have been filled between the check above and registering the flight
+            if (cachedFile.exists() && cachedMapFile.exists()) {
+                CacheStatistics.HITS.incrementAndGet();
+                writeFromCache(jsFileName, scriptLoader, cachedFile);
+                writeFromCache(jsFileName + ".map", scriptLoader, cachedMapFile);
+            }
+            else {
+                CacheStatistics.MISSES.incrementAndGet();
+                initDelegate();
+                delegate.compile(fileName, scriptLoader);
+                contents = scriptLoader.sourceFor(jsFileName + ".map", fileName);
+                writeToCache(contents, hashedMapFile);
+                contents = scriptLoader.sourceFor(jsFileName, fileName);
+                writeToCache(contents, hashedFile);
+            }
+            flight.complete(null);
+        }
+        catch (Throwable e) {
+            // Errors too, e.g. J2V8 thread access or StackOverflowError; waiters must not hang
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            IN_FLIGHT.remove(key, flight);
         }
     }
 
@@ -60,24 +106,69 @@ class FileSystemCachingCompiler implements Compiler {
         if (!this.cacheDir.exists()) {
             this.cacheDir.mkdirs();
         }
+        // Bundles or directories of bundles, separated by the path separator
+        String bundles = System.getProperty("ts.compilerBundles");
+        if (bundles != null) {
+            for (String bundle : bundles.split(File.pathSeparator)) {
+                if (!bundle.isEmpty()) {
+                    importBundle(new File(bundle));
+                }
+            }
+        }
     }
 
     @Override
-    public void shutdown() {
+    public File cacheDir() {
+        return cacheDir;
+    }
+
+    public void importBundle(File bundle) {
+        int count = CompilationBundles.extract(bundle, cacheDir);
+        LOGGER.debug("Imported {} cache entries from {}", count, bundle);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        delegate.shutdown();
+        // The next compile has to initialise the delegate again
+        delegateInitialised = false;
+    }
+
+    private synchronized void initDelegate() {
+        if (!delegateInitialised) {
+            delegate.init();
+            delegateInitialised = true;
+        }
     }
 
     private String calculateHash(String data) {
-        return DigestUtils.md5Hex(data);
+        return CompilationBundles.cacheKey(data);
     }
 
     private String toJavaScriptName(String filename) {
         return filename.replaceAll(".ts$", ".js");
     }
 
-    private void writeFromCache(String filename, ScriptLoader scriptLoader, File cachedFile) {
+    private void await(CompletableFuture<Void> flight) {
         try {
-            scriptLoader.writeOutput(filename,
-                    IOUtils.toString(new FileInputStream(cachedFile), StandardCharsets.ISO_8859_1));
+            flight.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TypeScriptCompilationException("Interrupted waiting for compilation", e);
+        }
+        catch (ExecutionException e) {
+            // Rethrow the original error so that diagnostics are reported as for the first caller
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TypeScriptCompilationException("Error compiling TypeScript", e.getCause());
+        }
+    }
+
+    private void writeFromCache(String filename, ScriptLoader scriptLoader, File cachedFile) {
+        try (InputStream is = new FileInputStream(cachedFile)) {
+            scriptLoader.writeOutput(filename, IOUtils.toString(is, StandardCharsets.ISO_8859_1));
         }
         catch (FileNotFoundException e) {
             throw new TypeScriptCompilationException("Error compiling TypeScript", e);
@@ -89,15 +180,12 @@ class FileSystemCachingCompiler implements Compiler {
 
     private void writeToCache(String contents, String hash) {
         try {
-            IOUtils.write(contents, new FileOutputStream(new File(cacheDir, hash)),
-                    StandardCharsets.ISO_8859_1);
-        }
-        catch (FileNotFoundException e) {
-            throw new TypeScriptCompilationException("Error compiling TypeScript", e);
+            CacheFiles.writeAtomically(new File(cacheDir, hash),
+                    os -> IOUtils.write(contents, os, StandardCharsets.ISO_8859_1));
         }
         catch (IOException e) {
             throw new TypeScriptCompilationException("Error compiling TypeScript", e);
         }
     }
 
-}
+}
\ No newline at end of file
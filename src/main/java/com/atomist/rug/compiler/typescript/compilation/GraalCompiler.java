@@ -0,0 +1,105 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+
+import com.atomist.rug.compiler.typescript.ScriptLoader;
+import com.atomist.rug.compiler.typescript.TypeScriptException;
+
+public class GraalCompiler extends AbstractCompiler<Context> implements Compiler {
+
+    private static final String LANGUAGE = "js";
+
+    // Implementation name of the Truffle runtime without the Graal JIT, e.g. on a stock JDK
+    private static final String INTERPRETED = "Interpreted";
+
+    // Sources are cached by the shared engine, so every context reuses the parsed and JIT
+    // compiled TypeScript services code; keyed by name and content hash
+    private static final Map<String, Source> SOURCES = new ConcurrentHashMap<>();
+
+    @Override
+    protected Context createEngine() {
+        return Context.newBuilder(LANGUAGE).engine(EngineHolder.ENGINE)
+                .allowHostAccess(HostAccess.ALL).build();
+    }
+
+    @Override
+    protected void configureEngine(Context engine) {
+        Value bindings = engine.getBindings(LANGUAGE);
+        bindings.putMember("_newline", System.lineSeparator());
+        bindings.putMember("_println", (ProxyExecutable) arguments -> {
+            System.out.println(arguments[0]);
+            return null;
+        });
+    }
+
+    @Override
+    protected void evalScript(Context engine, String src) {
+        evalScript(engine, "script.js", src);
+    }
+
+    @Override
+    protected void evalScript(Context engine, String name, String src) {
+        Source source = SOURCES.computeIfAbsent(name + "@" + DigestUtils.md5Hex(src),
+                k -> Source.newBuilder(LANGUAGE, src, name).cached(true).buildLiteral());
+        try {
+            engine.eval(source);
+        }
+        catch (PolyglotException e) {
+            throw new TypeScriptException("Error evaluating script", e);
+        }
+    }
+
+    @Override
+    protected void doCompile(Context engine, String file, ScriptLoader scriptLoader) {
+        try {
+            engine.getBindings(LANGUAGE).getMember("compile").execute(file, scriptLoader);
+        }
+        catch (PolyglotException e) {
+            throw new TypeScriptException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void doShutdown(Context engine) {
+        engine.close();
+    }
+
+    private static class EngineHolder {
+
+        private static final Engine ENGINE = Engine.create();
+    }
+
+    public static class GraalCompilerHelper {
+
+        public static boolean IS_ENABLED;
+
+        /**
+         * Whether the engine runs on an optimizing Truffle runtime; without it GraalJS only
+         * interprets and is much slower than V8.
+         */
+        public static boolean IS_OPTIMIZING;
+
+        static {
+            try {
+                Class.forName("org.graalvm.polyglot.Engine");
+                IS_ENABLED = EngineHolder.ENGINE.getLanguages().containsKey(LANGUAGE);
+                IS_OPTIMIZING = IS_ENABLED
+                        && !INTERPRETED.equals(EngineHolder.ENGINE.getImplementationName());
+            }
+            catch (Throwable e) {
+                IS_ENABLED = false;
+                IS_OPTIMIZING = false;
+            }
+        }
+    }
+}
@@ -40,20 +40,27 @@ public class V8Compiler extends AbstractCompiler<V8> implements Compiler {
             sourceFileLoader.writeOutput(fileName, content);
         };
 
-        V8Object scriptLoader = new V8Object(engine);
-        scriptLoader.registerJavaMethod(sourceFor, "sourceFor");
-        scriptLoader.registerJavaMethod(writeOutput, "writeOutput");
+        // Release every handle created during this compile, including those created by callbacks
+        MemoryManager scope = new MemoryManager(engine);
+        try {
+            V8Object scriptLoader = new V8Object(engine);
+            scriptLoader.registerJavaMethod(sourceFor, "sourceFor");
+            scriptLoader.registerJavaMethod(writeOutput, "writeOutput");
 
-        V8Array args = new V8Array(engine);
-        args.push(file);
-        args.push(scriptLoader);
+            V8Array args = new V8Array(engine);
+            args.push(file);
+            args.push(scriptLoader);
 
-        engine.executeStringFunction("compile", args);
+            engine.executeStringFunction("compile", args);
+        }
+        finally {
+            scope.release();
+        }
     }
 
     @Override
     protected void evalScript(V8 engine, String src) {
-        engine.executeScript(src);
+        engine.executeVoidScript(src);
     }
 
     @Override
@@ -62,6 +69,14 @@ public class V8Compiler extends AbstractCompiler<V8> implements Compiler {
         engine.release();
     }
 
+    /**
+     * Number of live V8 handles held by the engine; stays flat across compiles unless handles leak.
+     */
+    public long getObjectReferenceCount() {
+        V8 engine = getEngine();
+        return (engine != null ? engine.getObjectReferenceCount() : 0);
+    }
+
     @Override
     protected void finalize() throws Throwable {
         shutdown();
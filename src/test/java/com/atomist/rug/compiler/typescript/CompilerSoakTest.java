@@ -0,0 +1,162 @@
+package com.atomist.rug.compiler.typescript;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomist.rug.compiler.typescript.compilation.Compiler;
+import com.atomist.rug.compiler.typescript.compilation.CompilerFactory;
+import com.atomist.rug.compiler.typescript.compilation.V8Compiler;
+import com.atomist.source.ArtifactSource;
+import com.atomist.source.file.FileSystemArtifactSource;
+import com.atomist.source.file.SimpleFileSystemArtifactSourceIdentifier;
+
+/**
+ * Long running compiles of the test fixtures across engine lifecycles, failing on sustained growth
+ * of JVM heap, native RSS or live V8 handles.
+ * <p>
+ * Only runs with <code>-Dts.soak=true</code>; <code>ts.soak.iterations</code> sets the number of
+ * compiles per mode.
+ */
+public class CompilerSoakTest {
+
+    private static final int ITERATIONS = Integer.getInteger("ts.soak.iterations", 2000);
+    private static final int SAMPLES = 40;
+    private static final int BATCH = 50;
+
+    // Relative growth of the last quarter's minimum over the first quarter's maximum
+    private static final double MEMORY_TOLERANCE = 0.1;
+
+    private List<ArtifactSource> fixtures;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("ts.soak"));
+        fixtures = Arrays.asList(
+                new FileSystemArtifactSource(new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/my-editor"))),
+                new FileSystemArtifactSource(new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/licensing-editors"))));
+    }
+
+    @Test
+    public void testPooledCompiler() {
+        Compiler compiler = CompilerFactory.create();
+        try {
+            TypeScriptCompiler typeScriptCompiler = new TypeScriptCompiler(compiler);
+            soak("pooled", i -> typeScriptCompiler.compile(fixture(i)), compiler);
+        }
+        finally {
+            compiler.shutdown();
+        }
+    }
+
+    @Test
+    public void testExternalLifecycle() {
+        // A fresh externally managed engine for every batch of compiles
+        Compiler[] compiler = new Compiler[1];
+        soak("external", i -> {
+            if (i % BATCH == 0) {
+                if (compiler[0] != null) {
+                    compiler[0].shutdown();
+                }
+                compiler[0] = CompilerFactory.create();
+            }
+            new TypeScriptCompiler(compiler[0]).compile(fixture(i));
+        }, null);
+        compiler[0].shutdown();
+    }
+
+    @Test
+    public void testPerCallLifecycle() {
+        soak("per-call", i -> new TypeScriptCompiler().compile(fixture(i)), null);
+    }
+
+    private ArtifactSource fixture(int i) {
+        return fixtures.get(i % fixtures.size());
+    }
+
+    private void soak(String mode, Consumer<Integer> compile, Compiler pooled) {
+        Map<String, List<Long>> samples = new LinkedHashMap<>();
+        int sampleEvery = Math.max(1, ITERATIONS / SAMPLES);
+
+        // Warm up so JIT and lazily initialised caches don't count as growth
+        for (int i = 0; i < sampleEvery; i++) {
+            compile.accept(i);
+        }
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            compile.accept(i);
+            if (i % sampleEvery == sampleEvery - 1) {
+                sample(samples, pooled);
+            }
+        }
+
+        System.out.println(String.format("Soak %s after %s compiles: %s", mode, ITERATIONS,
+                samples));
+        samples.forEach((metric, values) -> assertNoSustainedGrowth(mode, metric, values,
+                metric.equals("v8Handles") ? 0 : MEMORY_TOLERANCE));
+    }
+
+    private void sample(Map<String, List<Long>> samples, Compiler pooled) {
+        System.gc();
+        System.runFinalization();
+        System.gc();
+        samples.computeIfAbsent("heap", k -> new ArrayList<>())
+                .add(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        long rss = rss();
+        if (rss >= 0) {
+            samples.computeIfAbsent("rss", k -> new ArrayList<>()).add(rss);
+        }
+        if (pooled instanceof V8Compiler) {
+            samples.computeIfAbsent("v8Handles", k -> new ArrayList<>())
+                    .add(((V8Compiler) pooled).getObjectReferenceCount());
+        }
+    }
+
+    private long rss() {
+        try {
+            // Linux only; reported in kB
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        }
+        catch (IOException e) {
+            // Not available on this platform
+        }
+        return -1;
+    }
+
+    private void assertNoSustainedGrowth(String mode, String metric, List<Long> values,
+            double tolerance) {
+        int quarter = values.size() / 4;
+        if (quarter == 0) {
+            return;
+        }
+        // Spikes are fine; only fail if even the lowest late sample is above every early one
+        long firstMax = values.subList(0, quarter).stream().mapToLong(Long::longValue).max()
+                .getAsLong();
+        long lastMin = values.subList(values.size() - quarter, values.size()).stream()
+                .mapToLong(Long::longValue).min().getAsLong();
+        if (lastMin > firstMax * (1 + tolerance)) {
+            fail(String.format("Sustained %s growth in %s mode: %s -> %s (%s)", metric, mode,
+                    firstMax, lastMin, values));
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package com.atomist.rug.compiler.typescript;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.ScriptException;
 
@@ -16,6 +26,8 @@ import org.junit.Test;
 
 import com.atomist.rug.compiler.CompilerRegistry;
 import com.atomist.rug.compiler.ServiceLoaderCompilerRegistry$;
+import com.atomist.rug.compiler.typescript.compilation.CompilationBundles;
+import com.atomist.rug.compiler.typescript.compilation.Compiler;
 import com.atomist.rug.compiler.typescript.compilation.CompilerFactory;
 import com.atomist.source.ArtifactSource;
 import com.atomist.source.EmptyArtifactSource;
@@ -100,6 +112,167 @@ public class TypeScriptCompilerTest {
         TypeScriptCompiler.main(new String[] {"src/test/resources/my-editor/.atomist", dir.toString()});
         assertTrue(new File(dir.toFile(), "editors/MyEditor.ts").exists());
     }
+
+    @Test
+    public void testDaemon() throws Exception {
+        File input = new File("src/test/resources/my-editor");
+        TypeScriptCompilerDaemon daemon = new TypeScriptCompilerDaemon(0, 2, 60000);
+        daemon.start();
+        try {
+            Path dir = Files.createTempDirectory("compiler-test");
+            assertTrue(TypeScriptCompilerDaemon.forward(daemon.getPort(), input, dir.toFile()));
+            assertCompiledUserModel(dir.toFile());
+        }
+        finally {
+            daemon.stop();
+        }
+        assertFalse(daemon.isRunning());
+
+        // Without a daemon the same request is compiled in-process
+        Path dir = Files.createTempDirectory("compiler-test");
+        assertFalse(TypeScriptCompilerDaemon.forward(daemon.getPort(), input, dir.toFile()));
+        TypeScriptCompiler.compile(new TypeScriptCompiler(), input, dir.toFile());
+        assertCompiledUserModel(dir.toFile());
+    }
+
+    private void assertCompiledUserModel(File dir) throws Exception {
+        File js = new File(dir, ".atomist/editors/SimpleEditor.js");
+        assertTrue(js.exists());
+        assertTrue(new String(Files.readAllBytes(js.toPath()), StandardCharsets.UTF_8)
+                .contains("var myeditor = new SimpleEditor();"));
+    }
+
+    @Test
+    public void testDaemonWorkerSurvivesErrors() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        // A single worker, so the second request is served by the thread that hit the Error
+        TypeScriptCompilerDaemon daemon = new TypeScriptCompilerDaemon(0, 1, 60000,
+                () -> new StubCompiler(created.incrementAndGet() == 1));
+        daemon.start();
+        try {
+            File input = new File("src/test/resources/my-editor");
+            Path dir = Files.createTempDirectory("compiler-test");
+            try {
+                TypeScriptCompilerDaemon.forward(daemon.getPort(), input, dir.toFile());
+                fail();
+            }
+            catch (TypeScriptCompilationException e) {
+                assertTrue(e.getMessage().contains("Invalid V8 thread access"));
+            }
+            assertTrue(TypeScriptCompilerDaemon.forward(daemon.getPort(), input, dir.toFile()));
+            assertTrue(new File(dir.toFile(), ".atomist/editors/SimpleEditor.js").exists());
+            assertEquals(2, created.get());
+        }
+        finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testDaemonRejectsRequestsWithoutToken() throws Exception {
+        TypeScriptCompilerDaemon daemon = new TypeScriptCompilerDaemon(0, 1, 60000);
+        daemon.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            Path dir = Files.createTempDirectory("compiler-test");
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8);
+            writer.write("compile\tnot-the-token\tsrc/test/resources/my-editor/.atomist\t" + dir
+                    + "\n");
+            writer.flush();
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("DENIED", reader.readLine());
+            assertFalse(new File(dir.toFile(), "editors/MyEditor.js").exists());
+        }
+        finally {
+            daemon.stop();
+        }
+        assertFalse(TypeScriptCompilerDaemon.tokenFile(daemon.getPort()).exists());
+    }
+
+    @Test
+    public void testExportAndImportBundle() throws Exception {
+        ArtifactSource source = new FileSystemArtifactSource(
+                new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/my-editor")));
+        Path dir = Files.createTempDirectory("compiler-test");
+        File bundle = new File(dir.toFile(), "my-editor.zip");
+
+        new TypeScriptCompiler(CompilerFactory.create()).exportBundle(source, bundle);
+        assertTrue(bundle.exists());
+
+        File cacheDir = new File(dir.toFile(), "cache");
+        cacheDir.mkdirs();
+        // MyEditor.ts, SimpleEditor.ts and ConstructedEditor.ts each with a .js and .js.map
+        assertEquals(6, CompilationBundles.extract(bundle, cacheDir));
+        String key = CompilationBundles.cacheKey(
+                source.findFile(".atomist/editors/SimpleEditor.ts").get().content());
+        assertTrue(new File(cacheDir, key + ".js").exists());
+        assertTrue(new File(cacheDir, key + ".js.map").exists());
+    }
+
+    @Test
+    public void testExportBundleWithoutSourcesFails() throws Exception {
+        ArtifactSource source = new FileSystemArtifactSource(
+                new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/my-editor/.atomist")));
+        File bundle = new File(Files.createTempDirectory("compiler-test").toFile(), "empty.zip");
+        try {
+            new TypeScriptCompiler(new NoEngineCompiler()).exportBundle(source, bundle);
+            fail();
+        }
+        catch (TypeScriptCompilationException e) {
+            assertFalse(bundle.exists());
+        }
+    }
+
+    @Test
+    public void testBundlesImportedOnInitSkipEngine() throws Exception {
+        ArtifactSource source = new FileSystemArtifactSource(
+                new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/my-editor")));
+        Path dir = Files.createTempDirectory("compiler-test");
+        File bundle = new File(dir.toFile(), "my-editor.zip");
+        ArtifactSource compiled = new TypeScriptCompiler(CompilerFactory.create())
+                .exportBundle(source, bundle);
+
+        System.setProperty("ts.compilerBundles", bundle.getAbsolutePath());
+        try {
+            Compiler compiler = CompilerFactory.cachingCompiler(new NoEngineCompiler(),
+                    new File(dir.toFile(), "cache").toString());
+            ArtifactSourceScriptLoader scriptLoader = new ArtifactSourceScriptLoader(source);
+            compiler.compile(".atomist/editors/SimpleEditor.ts", scriptLoader);
+
+            assertEquals(compiled.findFile(".atomist/editors/SimpleEditor.js").get().content(),
+                    scriptLoader.result().findFile(".atomist/editors/SimpleEditor.js").get()
+                            .content());
+        }
+        finally {
+            System.clearProperty("ts.compilerBundles");
+        }
+    }
+
+    @Test
+    public void testArchiveCacheSkipsEngine() throws Exception {
+        ArtifactSource source = new FileSystemArtifactSource(
+                new SimpleFileSystemArtifactSourceIdentifier(
+                        new File("./src/test/resources/my-editor")));
+        Path cacheDir = Files.createTempDirectory("compiler-cache");
+
+        ArtifactSource first = new TypeScriptCompiler(CompilerFactory
+                .cachingCompiler(CompilerFactory.create(), cacheDir.toString())).compile(source);
+
+        // Drop the per file cache so only the archive cache can serve the second compile
+        Files.list(cacheDir).filter(p -> p.toFile().isFile()).forEach(p -> p.toFile().delete());
+
+        ArtifactSource second = new TypeScriptCompiler(CompilerFactory
+                .cachingCompiler(new NoEngineCompiler(), cacheDir.toString())).compile(source);
+
+        assertEquals(first.findFile(".atomist/editors/SimpleEditor.js").get().content(),
+                second.findFile(".atomist/editors/SimpleEditor.js").get().content());
+        assertTrue(second.findFile(".atomist/editors/SimpleEditor.js.map").isDefined());
+    }
+
     @Test
     public void testCompileAndRunWithModules() throws Exception {
         ArtifactSource source = new FileSystemArtifactSource(
@@ -114,6 +287,64 @@ public class TypeScriptCompilerTest {
         assertTrue(complexJsContents.contains("var editor = {"));
     }
 
+    @Test
+    public void testScriptLoaderSharesLibrarySource() {
+        ArtifactSource source = new EmptyArtifactSource("test");
+        String lib = new ArtifactSourceScriptLoader(source)
+                .sourceFor("typescript/lib/lib.es5.d.ts", "Foo.ts");
+        assertTrue(lib.contains("interface Array<T>"));
+        assertSame(lib, new ArtifactSourceScriptLoader(source)
+                .sourceFor("typescript/lib/lib.es5.d.ts", "Bar.ts"));
+
+        String content = "var s = \"h\u00e9llo \u20ac\";";
+        ArtifactSourceScriptLoader scriptLoader = new ArtifactSourceScriptLoader(source);
+        scriptLoader.writeOutput(".atomist/editors/Foo.js", content);
+        assertEquals(content,
+                scriptLoader.result().findFile(".atomist/editors/Foo.js").get().content());
+    }
+
+    private static class NoEngineCompiler implements Compiler {
+
+        @Override
+        public void init() {
+            fail("Engine must not be initialised when outputs are cached");
+        }
+
+        @Override
+        public void compile(String filename, ScriptLoader scriptLoader) {
+            fail("Engine must not be used when outputs are cached");
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static class StubCompiler implements Compiler {
+
+        private final boolean fail;
+
+        StubCompiler(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void compile(String filename, ScriptLoader scriptLoader) {
+            if (fail) {
+                throw new StackOverflowError("Invalid V8 thread access");
+            }
+            scriptLoader.writeOutput(filename.replaceAll("\\.ts$", ".js"), "var a = 1;");
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
     @Test
     public void testCompileThroughCompilerFactory() {
         ArtifactSource source = new EmptyArtifactSource("test");
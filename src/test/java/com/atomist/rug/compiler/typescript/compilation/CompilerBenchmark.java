@@ -0,0 +1,110 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.atomist.rug.compiler.typescript.TypeScriptCompiler;
+import com.atomist.rug.compiler.typescript.compilation.GraalCompiler.GraalCompilerHelper;
+import com.atomist.rug.compiler.typescript.compilation.V8Compiler.V8CompilerHelper;
+import com.atomist.source.ArtifactSource;
+import com.atomist.source.file.FileSystemArtifactSource;
+import com.atomist.source.file.SimpleFileSystemArtifactSourceIdentifier;
+
+/**
+ * Compares warm-up, throughput, allocation and peak heap of the available compiler backends on the
+ * test fixtures.
+ * <p>
+ * Not run as part of the build; run {@link #main(String[])} from the test classpath with the
+ * <code>graaljs</code> profile enabled to include the GraalJS backend.
+ */
+public class CompilerBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 50);
+
+    public static void main(String[] args) {
+        ArtifactSource source = new FileSystemArtifactSource(
+                new SimpleFileSystemArtifactSourceIdentifier(
+                        new File(args.length > 0 ? args[0] : "./src/test/resources/licensing-editors")));
+
+        Map<String, Supplier<Compiler>> backends = new LinkedHashMap<>();
+        if (GraalCompilerHelper.IS_ENABLED) {
+            backends.put("graal", GraalCompiler::new);
+        }
+        if (V8CompilerHelper.IS_ENABLED) {
+            backends.put("v8", V8Compiler::new);
+        }
+        if (NashornCompiler.IS_ENABLED) {
+            backends.put("nashorn", NashornCompiler::new);
+        }
+
+        // Run twice so the second Graal pass shows the benefit of the shared engine
+        for (int pass = 1; pass <= 2; pass++) {
+            for (Map.Entry<String, Supplier<Compiler>> backend : backends.entrySet()) {
+                run(pass, backend.getKey(), backend.getValue(), source);
+            }
+        }
+    }
+
+    private static void run(int pass, String name, Supplier<Compiler> factory,
+            ArtifactSource source) {
+        long start = System.nanoTime();
+        Compiler compiler = factory.get();
+        compiler.init();
+        long initialised = System.nanoTime();
+        try {
+            TypeScriptCompiler typeScriptCompiler = new TypeScriptCompiler(compiler);
+            typeScriptCompiler.compile(source);
+            long firstCompile = System.nanoTime();
+
+            System.gc();
+            resetPeakHeap();
+            long allocated = allocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                typeScriptCompiler.compile(source);
+            }
+            long end = System.nanoTime();
+            allocated = allocatedBytes() - allocated;
+
+            System.out.println(String.format(
+                    "pass %s %-8s init %6d ms, first compile %6d ms, %7.2f compiles/s, "
+                            + "%8d kB allocated/compile, %7d MB peak heap",
+                    pass, name, (initialised - start) / 1000000,
+                    (firstCompile - initialised) / 1000000,
+                    ITERATIONS / ((end - firstCompile) / 1e9), allocated / ITERATIONS / 1024,
+                    peakHeap() / (1024 * 1024)));
+        }
+        finally {
+            compiler.shutdown();
+        }
+    }
+
+    private static long allocatedBytes() {
+        // Compiles and engine callbacks run on the calling thread
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void resetPeakHeap() {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    private static long peakHeap() {
+        return heapPools().stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP).collect(Collectors.toList());
+    }
+}
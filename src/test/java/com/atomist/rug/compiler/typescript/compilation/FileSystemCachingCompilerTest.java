@@ -0,0 +1,248 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.atomist.rug.compiler.typescript.ScriptLoader;
+import com.atomist.rug.compiler.typescript.TypeScriptCompilationException;
+
+public class FileSystemCachingCompilerTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentIdenticalCompilesAreCoalesced() throws Exception {
+        AtomicInteger compiles = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Compiler delegate = new SlowCompiler(compiles, release, null);
+        String cacheDir = Files.createTempDirectory("compiler-cache").toString();
+        long coalesced = CacheStatistics.coalesced();
+
+        List<MapScriptLoader> loaders = new ArrayList<>();
+        List<Future<?>> results = compileConcurrently(delegate, cacheDir, release, loaders);
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, compiles.get());
+        assertEquals(CALLERS - 1, CacheStatistics.coalesced() - coalesced);
+        loaders.forEach(l -> assertEquals("var a = 1;", l.outputs.get("Foo.js")));
+    }
+
+    @Test
+    public void testConcurrentIdenticalCompilesShareErrors() throws Exception {
+        AtomicInteger compiles = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Compiler delegate = new SlowCompiler(compiles, release,
+                new TypeScriptCompilationException("<#>Foo.ts(1,1): error<#>"));
+        String cacheDir = Files.createTempDirectory("compiler-cache").toString();
+
+        List<Future<?>> results = compileConcurrently(delegate, cacheDir, release,
+                new ArrayList<>());
+
+        for (Future<?> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TypeScriptCompilationException);
+            }
+        }
+        assertEquals(1, compiles.get());
+    }
+
+    @Test
+    public void testConcurrentIdenticalCompilesDontHangOnErrors() throws Exception {
+        AtomicInteger compiles = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Compiler delegate = new SlowCompiler(compiles, release,
+                new StackOverflowError("Invalid V8 thread access"));
+        String cacheDir = Files.createTempDirectory("compiler-cache").toString();
+
+        List<Future<?>> results = compileConcurrently(delegate, cacheDir, release,
+                new ArrayList<>());
+
+        int errors = 0;
+        for (Future<?> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch (ExecutionException e) {
+                // The compiling caller gets the Error itself, waiters get it wrapped
+                if (e.getCause() instanceof StackOverflowError) {
+                    errors++;
+                }
+                else {
+                    assertTrue(e.getCause() instanceof TypeScriptCompilationException);
+                    assertTrue(e.getCause().getCause() instanceof StackOverflowError);
+                }
+            }
+        }
+        assertEquals(1, errors);
+        assertEquals(1, compiles.get());
+    }
+
+    @Test
+    public void testCompileAfterShutdownInitialisesDelegateAgain() throws Exception {
+        AtomicInteger inits = new AtomicInteger();
+        Compiler delegate = new SlowCompiler(new AtomicInteger(), new CountDownLatch(0), null) {
+
+            @Override
+            public void init() {
+                inits.incrementAndGet();
+            }
+        };
+        FileSystemCachingCompiler compiler = new FileSystemCachingCompiler(delegate,
+                Files.createTempDirectory("compiler-cache").toString());
+        compiler.init();
+
+        compiler.compile("Foo.ts", new MapScriptLoader());
+        compiler.shutdown();
+        MapScriptLoader loader = new MapScriptLoader();
+        loader.outputs.put("Bar.ts", "let b = 2;");
+        compiler.compile("Bar.ts", loader);
+
+        assertEquals(2, inits.get());
+    }
+
+    @Test
+    public void testBundleOfOtherCompilerVersionIsRejected() throws Exception {
+        File dir = Files.createTempDirectory("compiler-cache").toFile();
+        File bundle = new File(dir, "other.zip");
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(CompilationBundles.MANIFEST, CompilationBundles.manifest("other"));
+        entries.put("abc.js", "var a = 1;".getBytes(StandardCharsets.ISO_8859_1));
+        CacheFiles.writeZip(bundle, entries);
+
+        File cacheDir = new File(dir, "cache");
+        cacheDir.mkdirs();
+        assertEquals(0, CompilationBundles.extract(bundle, cacheDir));
+        assertFalse(new File(cacheDir, "abc.js").exists());
+    }
+
+    @Test
+    public void testCorruptBundleIsSkipped() throws Exception {
+        File dir = Files.createTempDirectory("compiler-cache").toFile();
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(CompilationBundles.MANIFEST,
+                CompilationBundles.manifest(CompilationBundles.compilerVersion()));
+        entries.put("abc.js", "var a = 1;".getBytes(StandardCharsets.ISO_8859_1));
+        CacheFiles.writeZip(new File(dir, "good.zip"), entries);
+        byte[] bytes = Files.readAllBytes(new File(dir, "good.zip").toPath());
+        Files.write(new File(dir, "truncated.zip").toPath(),
+                Arrays.copyOf(bytes, bytes.length / 2));
+
+        File cacheDir = new File(dir, "cache");
+        cacheDir.mkdirs();
+        assertEquals(1, CompilationBundles.extract(dir, cacheDir));
+        assertTrue(new File(cacheDir, "abc.js").exists());
+    }
+
+    private List<Future<?>> compileConcurrently(Compiler delegate, String cacheDir,
+            CountDownLatch release, List<MapScriptLoader> loaders) throws Exception {
+        long coalesced = CacheStatistics.coalesced();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            FileSystemCachingCompiler compiler = new FileSystemCachingCompiler(delegate, cacheDir);
+            compiler.init();
+            MapScriptLoader loader = new MapScriptLoader();
+            loaders.add(loader);
+            results.add(executor.submit(() -> compiler.compile("Foo.ts", loader)));
+        }
+        executor.shutdown();
+
+        // Only release the first compile once every other caller waits for it
+        long deadline = System.currentTimeMillis() + 10000;
+        while (CacheStatistics.coalesced() - coalesced < CALLERS - 1) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Callers didn't queue up behind the first compile");
+            }
+            Thread.sleep(10);
+        }
+        release.countDown();
+        return results;
+    }
+
+    private static class SlowCompiler implements Compiler {
+
+        private final AtomicInteger compiles;
+        private final CountDownLatch release;
+        private final Throwable failure;
+
+        SlowCompiler(AtomicInteger compiles, CountDownLatch release, Throwable failure) {
+            this.compiles = compiles;
+            this.release = release;
+            this.failure = failure;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void compile(String filename, ScriptLoader scriptLoader) {
+            compiles.incrementAndGet();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            String jsFileName = filename.replaceAll("\\.ts$", ".js");
+            scriptLoader.writeOutput(jsFileName, "var a = 1;");
+            scriptLoader.writeOutput(jsFileName + ".map", "{}");
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static class MapScriptLoader implements ScriptLoader {
+
+        private final Map<String, String> outputs = new ConcurrentHashMap<>();
+
+        @Override
+        public String sourceFor(String fileName, String baseFileName) {
+            if ("Foo.ts".equals(fileName)) {
+                return "let a = 1;";
+            }
+            return outputs.get(fileName);
+        }
+
+        @Override
+        public void writeOutput(String fileName, String content) {
+            outputs.put(fileName, content);
+        }
+    }
+}
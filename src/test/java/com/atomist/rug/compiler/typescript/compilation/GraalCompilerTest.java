@@ -0,0 +1,121 @@
+package com.atomist.rug.compiler.typescript.compilation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomist.rug.compiler.typescript.ScriptLoader;
+import com.atomist.rug.compiler.typescript.TypeScriptCompilationException;
+import com.atomist.rug.compiler.typescript.TypeScriptCompiler;
+import com.atomist.rug.compiler.typescript.TypeScriptException;
+import com.atomist.rug.compiler.typescript.compilation.GraalCompiler.GraalCompilerHelper;
+import com.atomist.source.ArtifactSource;
+import com.atomist.source.EmptyArtifactSource;
+import com.atomist.source.StringFileArtifact;
+
+import scala.collection.JavaConversions;
+
+public class GraalCompilerTest {
+
+    private String editorTS = "class SimpleEditor  {\n" + "\n" + "    edit() {\n"
+            + "        return \"yeah\"\n" + "    }\n" + "}\n" + "";
+
+    private String brokenEditorTS = "class SimpleEditor  {\n" + "\n" + "    edit() {\n"
+            + "        let bla = new Test();\n"
+            + "        return \"yeah\"\n" + "    }\n" + "}\n" + "";
+
+    private GraalCompiler compiler;
+
+    @Before
+    public void before() {
+        assumeTrue(GraalCompilerHelper.IS_ENABLED);
+        compiler = new GraalCompiler();
+        compiler.init();
+    }
+
+    @After
+    public void after() {
+        if (compiler != null) {
+            compiler.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompile() {
+        ArtifactSource result = new TypeScriptCompiler(compiler).compile(editor(editorTS));
+        assertTrue(result.findFile(".atomist/editors/MyEditor.js").get().content()
+                .contains("var SimpleEditor = (function () {"));
+    }
+
+    @Test
+    public void testDiagnosticsArePassedThroughPolyglotException() {
+        try {
+            compiler.compile(".atomist/editors/MyEditor.ts", new ScriptLoaderStub(brokenEditorTS));
+            fail();
+        }
+        catch (TypeScriptException e) {
+            assertTrue(e.getMessage().contains(
+                    "<#>.atomist/editors/MyEditor.ts(4,23): error TS2304: Cannot find name 'Test'."));
+        }
+    }
+
+    @Test
+    public void testBrokenCompile() {
+        try {
+            new TypeScriptCompiler(compiler).compile(editor(brokenEditorTS));
+            fail();
+        }
+        catch (TypeScriptCompilationException e) {
+            assertEquals(".atomist/editors/MyEditor.ts(4,23): error TS2304: Cannot find name 'Test'.\n"
+                    + "        let bla = new Test();\n"
+                    + "                      ^\n", e.getMessage());
+        }
+    }
+
+    private ArtifactSource editor(String content) {
+        return new EmptyArtifactSource("test").plus(new StringFileArtifact("MyEditor.ts",
+                JavaConversions.asScalaBuffer(Arrays.asList(".atomist", "editors")), content));
+    }
+
+    private static class ScriptLoaderStub implements ScriptLoader {
+
+        private final String content;
+
+        ScriptLoaderStub(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public String sourceFor(String fileName, String baseFileName) {
+            if (fileName.equals(".atomist/editors/MyEditor.ts")) {
+                return content;
+            }
+            try (InputStream is = Thread.currentThread().getContextClassLoader()
+                    .getResourceAsStream(fileName)) {
+                if (is != null) {
+                    return IOUtils.toString(is, StandardCharsets.UTF_8);
+                }
+            }
+            catch (IOException e) {
+                throw new TypeScriptCompilationException(e.getMessage(), e);
+            }
+            throw new TypeScriptCompilationException(
+                    String.format("Source for %s couldn't be found", fileName));
+        }
+
+        @Override
+        public void writeOutput(String fileName, String content) {
+        }
+    }
+}